@@ -2,6 +2,7 @@ package rsd.dsp;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
 import java.awt.image.WritableRaster;
 
 /**
@@ -21,6 +22,12 @@ import java.awt.image.WritableRaster;
  *  {@code	// ...														}<br>
  *  {@code	// execute the convolution and get the returned BufferedImage	}<br>
  *  {@code	BufferedImage img = convolve2D.convolve();						}<br>
+ * <p>
+ * The setters above make a Convolve2D object mutable, so one configured that way
+ * must not be shared between threads. For concurrent use, pass the BufferedImage
+ * and kernel directly to convolve(BufferedImage, int[][]), which keeps no state
+ * in this object, so one instance can serve every thread.<p>
+ *  {@code	BufferedImage img = convolve2D.convolve(bi, kernel);			}<br>
  */
 public class Convolve2D 
 {
@@ -140,7 +147,7 @@ public class Convolve2D
 	 * @param bi A reference to a BufferedImage object.
 	 * @return BufferedImage A new deep copy that is converted to grayscale.
 	 */
-	public BufferedImage convertToGrayScalePixelByPixel(BufferedImage bi)
+	public static BufferedImage convertToGrayScalePixelByPixel(BufferedImage bi)
 	{
 		BufferedImage img = creatDeepCopyBufferedImage(bi);
 		
@@ -150,12 +157,9 @@ public class Convolve2D
 		    {
 		        int rgb 	= img.getRGB(x, y);
 		        int alpha 	= (rgb >> 24) 	& 0xFF;
-		        int red 	= (rgb >> 16) 	& 0xFF;
-		        int green 	= (rgb >> 8) 	& 0xFF;
-		        int blue 	= (rgb & 0xFF);
 	
 		        // get the average value for r + g + b
-		        int grayLevel = (red + green + blue) / 3;
+		        int grayLevel = getGrayLevel(rgb);
 		        
 		        // reassign the same value for each r, g, b
 		        int gray = 	( alpha << 24) 	+ 
@@ -177,7 +181,7 @@ public class Convolve2D
 	 * @param bi A reference to a BufferedImage object.
 	 * @return BufferedImage a new copy of the bi
 	 */
-	public BufferedImage creatDeepCopyBufferedImage(BufferedImage bi) 
+	public static BufferedImage creatDeepCopyBufferedImage(BufferedImage bi) 
 	{
 	    ColorModel cm 					= bi.getColorModel();
 	    boolean isAlphaPremultiplied 	= cm.isAlphaPremultiplied();
@@ -200,151 +204,214 @@ public class Convolve2D
 	{
 		if( bi == null || kernel == null )
 			throw new Exception("missing critical values for convolution.");
-		
-		// first convert the image to gray scale
-		BufferedImage grayImg = convertToGrayScalePixelByPixel(bi);
-		
-		// create a copy of the image
-		BufferedImage convolvedImg = creatDeepCopyBufferedImage(grayImg);
-		
-		// We will run the convolution on the grayImg, pixel by pixel
-		// The output will be placed into the corresponding pixel location 
-		// of the copy.
-		
-    	// create a temporary matrix that will represent
-    	// a tile of the matrix we are working on and
-    	// prime it with 1s.
-    	// it should always be 3x3, 5x5, 7x7, etc ...
-    	// the same dimension as the kernel
-		// we will reuse this array for every single pixel
-    	int[][] tile = createLogicalOnesArray2D(kernel.length);
-		
-		// double for loop to access each pixel and
-		// perform the convolution calculation
-	    for (int x = 0; x < grayImg.getWidth(); ++x)
-	    {
-		    for (int y = 0; y < grayImg.getHeight(); ++y)
-		    {
-		    	// TODO
-		    	// the creation of the tile matrix will
-		    	// be softcoded to match the same dimension
-		    	// as that of the kernel		    	
-				
-				// pass the tile and grayImg by reference and fill
-				// the proper values for the tile, based around the
-				// pixel at [x,y]
-				fillTile(grayImg, x, y, tile);
-				
-				// get the sum of the products fore each element to each corresponding 
-				// element for the kernel and the tile 
-				int sum 	= 0;
-				int divisor = 0;
-				for( int k = 0; k < kernel.length; k++ )
+
+		return convolve(bi, kernel);
+	}
+
+	/**
+	 * Convolves the BufferedImage parameter using the kernel parameter.<br>
+	 * This method does not read or write any field of this Convolve2D object,
+	 * and all scratch space is allocated per call, so a single Convolve2D
+	 * instance may be shared and called from any number of threads at once.<br>
+	 * The kernel is copied on entry, so later changes to the caller's array do
+	 * not affect a convolution that is already running.<br>
+	 * The BufferedImage is first converted to grayscale, with the same result as
+	 * convertToGrayScalePixelByPixel, and the original is not modified.
+	 * @param bi A reference to a BufferedImage object.
+	 * @param kernel A reference to a square 2D int array, whose side length must
+	 * 		  be a positive odd value of 3 or greater, and whose sum is not zero.<br>
+	 * @return BufferedImage the convolved BufferedImage
+	 * @throws IllegalArgumentException thrown if bi or kernel are null, if kernel does not have
+	 * 		   the proper dimension, or if the kernel sum is zero.
+	 */
+	public BufferedImage convolve(BufferedImage bi, int[][] kernel) throws IllegalArgumentException
+	{
+		if( bi == null )
+			throw new IllegalArgumentException("BufferedImage reference is null");
+
+		if( verifyKernelSquareOdd(kernel) == false )
+			throw new IllegalArgumentException("matrix not square odd or less than side length 3");
+
+		// take a flat copy of the kernel, where element [i][j] is stored
+		// at [i * side + j], and get the divisor, which is the sum of the kernel
+		int side 	= kernel.length;
+		int[] k 	= new int[side * side];
+		int divisor = 0;
+		for( int i = 0; i < side; i++ )
+		{
+			for( int j = 0; j < side; j++ )
+			{
+				k[i * side + j] = kernel[i][j];
+				divisor += kernel[i][j];
+			}
+		}
+
+		if( divisor == 0 )
+			throw new IllegalArgumentException("kernel sum is zero");
+
+		int width 	= bi.getWidth();
+		int height 	= bi.getHeight();
+
+		// read every pixel once into a row major array of gray levels
+		int[] gray = getGrayPlane(bi);
+
+		// the convolved values are placed in here and
+		// written to the output image in one call
+		int[] out = new int[width * height];
+
+		// the slide value is used to adjust the pixel relativity
+		// in the kernel loops below, the center of the kernel
+		// corresponds to the pixel at [x,y]
+		int slide = side / 2;
+
+		for( int y = 0; y < height; y++ )
+		{
+			for( int x = 0; x < width; x++ )
+			{
+				int center = gray[y * width + x];
+
+				// when the whole kernel lies inside the image we
+				// can skip the bounds checks for every element
+				boolean interior = x >= slide && x < width - slide &&
+								   y >= slide && y < height - slide;
+
+				int sum = 0;
+				for( int i = 0; i < side; i++ )
 				{
-					for( int m = 0; m < kernel[k].length; m++ )
+					int xAdjusted = x - slide + i;
+
+					for( int j = 0; j < side; j++ )
 					{
-						//if( kernel[k][m] != 0 )
-						//	divisor += 1;
-						// the divisor is the sum of the kernel
-						divisor += kernel[k][m];
-						
-						// only use the low byte for tile[k][m] because
-						// it be the same value as the r and g values
-						sum += kernel[k][m] * ( tile[k][m] & 0xFF );
+						int yAdjusted = y - slide + j;
+
+						int val;
+						if( interior ||
+							( xAdjusted >= 0 && xAdjusted < width &&
+							  yAdjusted >= 0 && yAdjusted < height ) )
+						{
+							val = gray[yAdjusted * width + xAdjusted];
+						} else {
+							// just use the value of the pixel at x, y
+							val = center;
+						}
+
+						sum += k[i * side + j] * val;
 					}
 				}
-				
+
 				// divide the sum by divisor
 				int newVal = sum / divisor;
-				
+
 				// this newVal must be between 0 and 255
 				if( newVal < 0 )
 					newVal = 0;
-				
+
 				if( newVal > 255 )
 					newVal = 255;
-		    	
-		        //int rgb 	= grayImg.getRGB(x, y);
-		        //int alpha 	= (rgb >> 24) & 0xFF;
-		    	// get the blue value for the pixel at hand, and
-		    	// the 8 pixels around it
-		        //int val 	= (rgb & 0xFF);
-		        
-		        // now put the newVal into one integer
+
 		        // reassign the same value for each r, g, b because it
-		        // is  gray scale
-		        int finalVal =  (newVal << 16) + (newVal << 8) + newVal; 
-		        
-		        // set the pixel to the gray value
-		        convolvedImg.setRGB(x, y, finalVal);
-		    }
-	    }
-	    
+		        // is gray scale
+				out[y * width + x] = (newVal << 16) + (newVal << 8) + newVal;
+			}
+		}
+
+		// every pixel is overwritten, so there is no need to copy the data
+		BufferedImage convolvedImg = createCompatibleBufferedImage(bi);
+		convolvedImg.setRGB(0, 0, width, height, out, 0, width);
+
 	    return convolvedImg;
 	}
-	
+
 	/**
-	 * createLogicalOnesArray2D<br>
-	 * Creates a 2D int array that is square, with all values equal to 1.<br>
-	 * @param sideLength
-	 * @return
+	 * Returns the gray level of every pixel of the BufferedImage as a row major
+	 * int array, where pixel [x,y] is found at index [y * width + x].<br>
+	 * The values are the same as the low byte of each pixel of the image returned
+	 * by convertToGrayScalePixelByPixel. When writing a gray back into the image is
+	 * lossy, such as with a palette (GIF) or fewer than 8 bits per component (565 or
+	 * 555 rgb), that image is built so each gray is snapped to what the image can hold.
+	 * Every other image has its gray computed directly from its rgb values.<br>
+	 * Gradient2D uses this method too, so both classes see the same gray levels.
+	 * @param bi A reference to a BufferedImage object.
+	 * @return int[] the gray plane, with values between 0 and 255
+	 * @throws IllegalArgumentException thrown if bi is null.
 	 */
-	private int[][] createLogicalOnesArray2D(int sideLength)
+	public static int[] getGrayPlane(BufferedImage bi) throws IllegalArgumentException
 	{
-		int[][] logicalMatrix = new int[sideLength][sideLength];
-		
-	    for (int x = 0; x < sideLength; ++x)
-	    {
-		    for (int y = 0; y < sideLength; ++y)
-		    {
-		    	logicalMatrix[x][y] = 1;
-		    }
-	    }
-	    
-	    return logicalMatrix;
+		if( bi == null )
+			throw new IllegalArgumentException("BufferedImage reference is null");
+
+		int width 	= bi.getWidth();
+		int height 	= bi.getHeight();
+
+		if( isGrayWriteBackExact(bi.getColorModel()) == false )
+		{
+			// writing the gray back into this image changes it, so
+			// take the gray image and use only the low byte of each pixel
+			BufferedImage grayImg = convertToGrayScalePixelByPixel(bi);
+
+			int[] gray = grayImg.getRGB(0, 0, width, height, null, 0, width);
+			for( int p = 0; p < gray.length; p++ )
+				gray[p] = gray[p] & 0xFF;
+
+			return gray;
+		}
+
+		int[] gray = bi.getRGB(0, 0, width, height, null, 0, width);
+		for( int p = 0; p < gray.length; p++ )
+			gray[p] = getGrayLevel(gray[p]);
+
+		return gray;
 	}
-	
-	
+
 	/**
-	 * fillTile	 
-	 * Construct the proper values for an image's tile, based around the 
-	 * pixel at [x,y] in the BufferedImage.
-	 * If the pixel [x,y] is on the border of the image, then the tile
-	 * values will remain unchanged from what it was initialized at, 1
-	 * @param bi
-	 * @param tile
-	 * @param x
-	 * @param y
+	 * This method will verify if a gray level written into an image with the
+	 * ColorModel parameter is read back unchanged.<br>
+	 * @param cm the ColorModel of the image.
+	 * @return true if the write back is exact, false if it is snapped to a palette
+	 * 		   or to a component of fewer than 8 bits.
 	 */
-	private void fillTile(BufferedImage bi, int x, int y, int[][] tile )
+	private static boolean isGrayWriteBackExact(ColorModel cm)
 	{
-		// note the center of the tile is at [1,1]
-		// the center of the tile will correspond to the [x,y] for bi
-		
-		// get the length of one side of the tile and create a slide value
-		// which will be a number corresponding to the center value of the
-		// side length
-		// This slide value is used to adjust the pixel relativity in the 
-		// double for loop below.
-		int slide = tile.length / 2;
-		
-		for( int i = 0; i < tile.length; i++ )
+		if( cm instanceof IndexColorModel )
+			return false;
+
+		for( int i = 0; i < cm.getNumComponents(); i++ )
 		{
-			for( int j = 0; j < tile[i].length; j++ )
-			{
-				// determine adjusted values for x and y
-				int xAdjusted = x - slide + i;
-				int yAdjusted = y - slide + j;
-				
-				if( xAdjusted < 0 || xAdjusted >= bi.getWidth() ||
-					yAdjusted < 0 || yAdjusted >= bi.getHeight() )
-				{
-					// just use the value of the pixel at  x, y
-					tile[i][j] = bi.getRGB(x, y);
-				} else {
-					tile[i][j] = bi.getRGB(xAdjusted, yAdjusted);
-				}
-			}
+			if( cm.getComponentSize(i) < 8 )
+				return false;
 		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the gray level of a packed argb pixel, which is the
+	 * average of its r, g and b values.<br>
+	 * @param rgb the packed argb pixel value.
+	 * @return int the gray level, between 0 and 255
+	 */
+	private static int getGrayLevel(int rgb)
+	{
+		int red 	= (rgb >> 16) 	& 0xFF;
+		int green 	= (rgb >> 8) 	& 0xFF;
+		int blue 	= (rgb & 0xFF);
+
+		return (red + green + blue) / 3;
+	}
+
+	/**
+	 * Creates a new BufferedImage with the same ColorModel and dimensions
+	 * as the BufferedImage parameter, without copying its pixel data.<br>
+	 * @param bi A reference to a BufferedImage object.
+	 * @return BufferedImage a new empty image compatible with bi
+	 */
+	private BufferedImage createCompatibleBufferedImage(BufferedImage bi)
+	{
+	    ColorModel cm 					= bi.getColorModel();
+	    boolean isAlphaPremultiplied 	= cm.isAlphaPremultiplied();
+
+	    WritableRaster raster = bi.getRaster().createCompatibleWritableRaster();
+
+	    return new BufferedImage(cm, raster, isAlphaPremultiplied, null);
 	}
 }
@@ -49,6 +49,305 @@ public class ConvolveTestHarness
 		} catch( Exception ex ) {
 			
 		}
+		
+		// check the stateless convolution against the original algorithm
+		verifyConvolve2D();
+		
+		// check the fused gradient against a plain 3x3 convolution
+		verifyGradient2D(bi);
+	}
+	
+	/**
+	 * Checks Convolve2D.convolve(BufferedImage, int[][]) against a reference built
+	 * the original way, from convertToGrayScalePixelByPixel and one getRGB per tile
+	 * element, for every BufferedImage.TYPE_XXX with random pixels.<br>
+	 * Then runs the same images through one shared Convolve2D from a thread pool
+	 * and checks that every result matches the single threaded one.
+	 * @return true if every pixel matched.
+	 */
+	public static boolean verifyConvolve2D()
+	{
+		java.util.Random random = new java.util.Random(2017);
+		KernelFactory2D kf2D = KernelFactory2D.getInstance();
+		
+		final int[][][] kernels = {
+			kf2D.getKernelSmoothingUnweighted(),
+			kf2D.getKernelSmoothingGaussianBlur(),
+			kf2D.getKernelSharping(),
+			kf2D.getKernelSharpingIntensified(),
+			kf2D.getKernelSharpingIntensified(5, 25)
+		};
+		
+		int[] types = {
+			BufferedImage.TYPE_INT_RGB, 		BufferedImage.TYPE_INT_ARGB,
+			BufferedImage.TYPE_INT_ARGB_PRE, 	BufferedImage.TYPE_INT_BGR,
+			BufferedImage.TYPE_3BYTE_BGR, 		BufferedImage.TYPE_4BYTE_ABGR,
+			BufferedImage.TYPE_4BYTE_ABGR_PRE, 	BufferedImage.TYPE_USHORT_565_RGB,
+			BufferedImage.TYPE_USHORT_555_RGB, 	BufferedImage.TYPE_BYTE_GRAY,
+			BufferedImage.TYPE_USHORT_GRAY, 	BufferedImage.TYPE_BYTE_BINARY,
+			BufferedImage.TYPE_BYTE_INDEXED
+		};
+		
+		final BufferedImage[] images = new BufferedImage[types.length];
+		for( int t = 0; t < types.length; t++ )
+		{
+			images[t] = new BufferedImage(60, 45, types[t]);
+			for( int x = 0; x < 60; x++ )
+				for( int y = 0; y < 45; y++ )
+					images[t].setRGB(x, y, random.nextInt());
+		}
+		
+		// one instance shared by every check and every thread
+		final Convolve2D convolve2D = new Convolve2D();
+		
+		int failures = 0;
+		int checked	 = 0;
+		
+		BufferedImage[][] results = new BufferedImage[images.length][kernels.length];
+		for( int t = 0; t < images.length; t++ )
+		{
+			for( int k = 0; k < kernels.length; k++ )
+			{
+				results[t][k] = convolve2D.convolve(images[t], kernels[k]);
+				BufferedImage expected = convolveReference(images[t], kernels[k]);
+				
+				int diff = countDifferentPixels(expected, results[t][k]);
+				if( diff != 0 )
+					System.out.println("Convolve2D: type " + types[t] + " kernel " + k +
+									   " differs in " + diff + " pixels");
+				failures += diff;
+				checked  += 60 * 45;
+			}
+		}
+		
+		// run every image and kernel pair several times at once on the shared instance
+		java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(8);
+		java.util.List<java.util.concurrent.Future<BufferedImage>> futures =
+				new java.util.ArrayList<java.util.concurrent.Future<BufferedImage>>();
+		
+		int repeats = 4;
+		for( int r = 0; r < repeats; r++ )
+		{
+			for( int t = 0; t < images.length; t++ )
+			{
+				for( int k = 0; k < kernels.length; k++ )
+				{
+					final BufferedImage image 	= images[t];
+					final int[][] kernel 		= kernels[k];
+					futures.add(pool.submit(new java.util.concurrent.Callable<BufferedImage>() {
+						public BufferedImage call() {
+							return convolve2D.convolve(image, kernel);
+						}
+					}));
+				}
+			}
+		}
+		
+		try {
+			int f = 0;
+			for( int r = 0; r < repeats; r++ )
+			{
+				for( int t = 0; t < images.length; t++ )
+				{
+					for( int k = 0; k < kernels.length; k++ )
+					{
+						failures += countDifferentPixels(results[t][k], futures.get(f++).get());
+						checked  += 60 * 45;
+					}
+				}
+			}
+		} catch( Exception ex ) {
+			ex.printStackTrace();
+			failures++;
+		} finally {
+			pool.shutdown();
+		}
+		
+		System.out.println("Convolve2D: " + failures + " mismatches in " + checked + " pixels");
+		
+		return failures == 0;
+	}
+	
+	/**
+	 * Convolves bi the way Convolve2D.convolve() originally did, one getRGB per
+	 * tile element on the image from convertToGrayScalePixelByPixel, writing
+	 * each result into a copy of that gray image.
+	 */
+	private static BufferedImage convolveReference(BufferedImage bi, int[][] kernel)
+	{
+		BufferedImage grayImg 		= Convolve2D.convertToGrayScalePixelByPixel(bi);
+		BufferedImage convolvedImg 	= Convolve2D.creatDeepCopyBufferedImage(grayImg);
+		int slide = kernel.length / 2;
+		
+		for( int x = 0; x < grayImg.getWidth(); x++ )
+		{
+			for( int y = 0; y < grayImg.getHeight(); y++ )
+			{
+				int sum 	= 0;
+				int divisor = 0;
+				for( int i = 0; i < kernel.length; i++ )
+				{
+					for( int j = 0; j < kernel.length; j++ )
+					{
+						int xAdjusted = x - slide + i;
+						int yAdjusted = y - slide + j;
+						
+						// just use the value of the pixel at x, y outside of the image
+						int rgb = grayImg.getRGB(x, y);
+						if( xAdjusted >= 0 && xAdjusted < grayImg.getWidth() &&
+							yAdjusted >= 0 && yAdjusted < grayImg.getHeight() )
+							rgb = grayImg.getRGB(xAdjusted, yAdjusted);
+						
+						divisor += kernel[i][j];
+						sum 	+= kernel[i][j] * ( rgb & 0xFF );
+					}
+				}
+				
+				int newVal = Math.max(0, Math.min(255, sum / divisor));
+				convolvedImg.setRGB(x, y, (newVal << 16) + (newVal << 8) + newVal);
+			}
+		}
+		
+		return convolvedImg;
+	}
+	
+	/**
+	 * Returns the number of pixels whose getRGB values differ between two
+	 * images of the same size.
+	 */
+	private static int countDifferentPixels(BufferedImage a, BufferedImage b)
+	{
+		int diff = 0;
+		for( int x = 0; x < a.getWidth(); x++ )
+		{
+			for( int y = 0; y < a.getHeight(); y++ )
+			{
+				if( a.getRGB(x, y) != b.getRGB(x, y) )
+					diff++;
+			}
+		}
+		
+		return diff;
+	}
+	
+	/**
+	 * Checks Gradient2D against a brute force 3x3 convolution that uses the
+	 * same border rule as Convolve2D, for Sobel and Scharr, on random gray planes
+	 * from 1x1 up to 40x31 and on bi if it is not null.<br>
+	 * The direction is checked against the angle from Math.atan2.
+	 * @param bi A reference to a BufferedImage, or null.
+	 * @return true if every value matched.
+	 */
+	public static boolean verifyGradient2D(BufferedImage bi)
+	{
+		Gradient2D gradient2D = Gradient2D.getInstance();
+		java.util.Random random = new java.util.Random(2017);
+		
+		// the X kernels in Convolve2D orientation, where the first index
+		// is the x offset, the Y kernels are their transposes
+		int[][] sobelX 	= { {-1, -2, -1}, {0, 0, 0}, {1, 2, 1} };
+		int[][] scharrX = { {-3, -10, -3}, {0, 0, 0}, {3, 10, 3} };
+		
+		int failures = 0;
+		int checked	 = 0;
+		
+		for( int width = 1; width <= 40; width += 3 )
+		{
+			for( int height = 1; height <= 31; height += 5 )
+			{
+				int[] gray = new int[width * height];
+				for( int p = 0; p < gray.length; p++ )
+					gray[p] = random.nextInt(256);
+				
+				failures += verifyGradient(gradient2D, gray, width, height, sobelX, true);
+				failures += verifyGradient(gradient2D, gray, width, height, scharrX, false);
+				checked  += 2 * gray.length;
+			}
+		}
+		
+		if( bi != null )
+		{
+			int[] gray = gradient2D.getGrayPlane(bi);
+			failures += verifyGradient(gradient2D, gray, bi.getWidth(), bi.getHeight(), sobelX, true);
+			failures += verifyGradient(gradient2D, gray, bi.getWidth(), bi.getHeight(), scharrX, false);
+			checked  += 2 * gray.length;
+		}
+		
+		System.out.println("Gradient2D: " + failures + " mismatches in " + checked + " pixels");
+		
+		return failures == 0;
+	}
+	
+	/**
+	 * Runs one Sobel or Scharr pass with both L1 and L2 magnitudes, and
+	 * returns the number of pixels that differ from the brute force result.
+	 */
+	private static int verifyGradient(Gradient2D gradient2D, int[] gray, int width, int height,
+									  int[][] kernelX, boolean sobel)
+	{
+		int n = width * height;
+		int[] gx 	= new int[n];
+		int[] gy 	= new int[n];
+		int[] l1 	= new int[n];
+		int[] l2 	= new int[n];
+		byte[] dir 	= new byte[n];
+		
+		if( sobel )
+		{
+			gradient2D.sobel(gray, width, height, gx, gy, l1, dir, false);
+			gradient2D.sobel(gray, width, height, null, null, l2, null, true);
+		} else {
+			gradient2D.scharr(gray, width, height, gx, gy, l1, dir, false);
+			gradient2D.scharr(gray, width, height, null, null, l2, null, true);
+		}
+		
+		int failures = 0;
+		for( int y = 0; y < height; y++ )
+		{
+			for( int x = 0; x < width; x++ )
+			{
+				int center = gray[y * width + x];
+				int sumX = 0;
+				int sumY = 0;
+				
+				for( int i = 0; i < 3; i++ )
+				{
+					for( int j = 0; j < 3; j++ )
+					{
+						int xAdjusted = x - 1 + i;
+						int yAdjusted = y - 1 + j;
+						
+						// just use the value of the pixel at x, y outside of the image
+						int val = center;
+						if( xAdjusted >= 0 && xAdjusted < width &&
+							yAdjusted >= 0 && yAdjusted < height )
+							val = gray[yAdjusted * width + xAdjusted];
+						
+						sumX += kernelX[i][j] * val;
+						sumY += kernelX[j][i] * val;
+					}
+				}
+				
+				// fold the angle into [0, 180) and find the nearest 45 degree bin
+				double angle = Math.toDegrees(Math.atan2(sumY, sumX));
+				if( angle < 0 )
+					angle += 180;
+				if( angle >= 180 )
+					angle -= 180;
+				int expectedDir = (int) ((angle + 22.5) / 45) % 4;
+				
+				int p = y * width + x;
+				if( gx[p] != sumX || gy[p] != sumY ||
+					l1[p] != Math.abs(sumX) + Math.abs(sumY) ||
+					l2[p] != (int) Math.round(Math.sqrt((double) sumX * sumX + (double) sumY * sumY)) ||
+					dir[p] != expectedDir )
+				{
+					failures++;
+				}
+			}
+		}
+		
+		return failures;
 	}
 	
 	public static BufferedImage readImage(File file)
@@ -0,0 +1,289 @@
+package rsd.dsp;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Gradient2D is a Singleton class that computes the image gradient of a grayscale
+ * image with the 3x3 Sobel or Scharr operator.<br>
+ * Unlike running Convolve2D twice with an X and a Y derivative kernel, Gradient2D
+ * reads each 3x3 neighborhood once and computes Gx, Gy, the gradient magnitude and
+ * the quantized gradient direction in that single pass. The results are not divided
+ * or clamped, so negative derivatives are kept.<p>
+ *
+ * All output planes are row major int or byte arrays of at least width * height
+ * elements, where pixel [x,y] is found at index [y * width + x]. Any output plane
+ * may be null, in which case that value is not stored.<p>
+ *
+ * Kernels here are written with rows along y, so the Sobel X kernel is
+ * {{-1,0,1},{-2,0,2},{-1,0,1}} and the Scharr X kernel is {{-3,0,3},{-10,0,10},{-3,0,3}},
+ * each Y kernel being the transpose. Convolve2D uses the first index of its kernel as
+ * the x offset, so in its orientation these X kernels are {{-1,-2,-1},{0,0,0},{1,2,1}}
+ * and {{-3,-10,-3},{0,0,0},{3,10,3}}.<p>
+ *
+ * Gradient2D has no fields, so the Singleton instance can be called from any
+ * number of threads at once.<p>
+ *  {@code	// bi is BufferedImage from somewhere in program				}<br>
+ *  {@code	int n = bi.getWidth() * bi.getHeight();							}<br>
+ *  {@code	int[] magnitude = new int[n];									}<br>
+ *  {@code	byte[] direction = new byte[n];									}<br>
+ *  {@code	Gradient2D.getInstance().sobel(bi, null, null, magnitude, direction, true);	}<br>
+ */
+public class Gradient2D
+{
+	/** Direction of a gradient that is close to horizontal, 0 degrees. */
+	public static final byte DIRECTION_0 	= 0;
+
+	/** Direction of a gradient that is close to 45 degrees, Gx and Gy have the same sign. */
+	public static final byte DIRECTION_45 	= 1;
+
+	/** Direction of a gradient that is close to vertical, 90 degrees. */
+	public static final byte DIRECTION_90 	= 2;
+
+	/** Direction of a gradient that is close to 135 degrees, Gx and Gy have opposite signs. */
+	public static final byte DIRECTION_135 	= 3;
+
+	private Gradient2D() { }
+
+	// this private static field is created as soon as the
+	// class is loaded in the JVM
+	private static final Gradient2D instance = new Gradient2D();
+
+	/**
+	 * Returns a Singleton instance of this class.<br>
+	 * @return The Singleton Gradient2D instance.
+	 */
+	public static Gradient2D getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the gray level of every pixel of the BufferedImage as a row major
+	 * int array, where pixel [x,y] is found at index [y * width + x].<br>
+	 * This is the gray plane computed by Convolve2D.getGrayPlane, so the gradient
+	 * sees the same gray levels as a convolution of the same image.<br>
+	 * @param bi A reference to a BufferedImage object.
+	 * @return int[] the gray plane, with values between 0 and 255
+	 * @throws IllegalArgumentException thrown if bi is null.
+	 */
+	public int[] getGrayPlane(BufferedImage bi) throws IllegalArgumentException
+	{
+		return Convolve2D.getGrayPlane(bi);
+	}
+
+	/**
+	 * Computes the Sobel gradient of the BufferedImage, after converting it to gray.<br>
+	 * The Sobel kernels are given in the class description.<br>
+	 * @param bi A reference to a BufferedImage object.
+	 * @param gx plane that receives the X derivative, or null.
+	 * @param gy plane that receives the Y derivative, or null.
+	 * @param magnitude plane that receives the gradient magnitude, or null.
+	 * @param direction plane that receives one of the DIRECTION_XXX values, or null.
+	 * @param l2 true for the magnitude sqrt(Gx*Gx + Gy*Gy), false for |Gx| + |Gy|.
+	 * @throws IllegalArgumentException thrown if bi is null or an output plane is too small.
+	 */
+	public void sobel(BufferedImage bi, int[] gx, int[] gy,
+					  int[] magnitude, byte[] direction, boolean l2) throws IllegalArgumentException
+	{
+		int[] gray = getGrayPlane(bi);
+		gradient(gray, bi.getWidth(), bi.getHeight(), 1, 2, gx, gy, magnitude, direction, l2);
+	}
+
+	/**
+	 * Computes the Sobel gradient of a gray plane, such as one returned by getGrayPlane.<br>
+	 * The Sobel kernels are given in the class description.<br>
+	 * @param gray row major gray plane of at least width * height elements.
+	 * @param width the width of the image in pixels.
+	 * @param height the height of the image in pixels.
+	 * @param gx plane that receives the X derivative, or null.
+	 * @param gy plane that receives the Y derivative, or null.
+	 * @param magnitude plane that receives the gradient magnitude, or null.
+	 * @param direction plane that receives one of the DIRECTION_XXX values, or null.
+	 * @param l2 true for the magnitude sqrt(Gx*Gx + Gy*Gy), false for |Gx| + |Gy|.
+	 * @throws IllegalArgumentException thrown if gray is null, the dimensions are not
+	 * 		   positive or too large, or any plane is too small.
+	 */
+	public void sobel(int[] gray, int width, int height, int[] gx, int[] gy,
+					  int[] magnitude, byte[] direction, boolean l2) throws IllegalArgumentException
+	{
+		gradient(gray, width, height, 1, 2, gx, gy, magnitude, direction, l2);
+	}
+
+	/**
+	 * Computes the Scharr gradient of the BufferedImage, after converting it to gray.<br>
+	 * The Scharr kernels are given in the class description.
+	 * It is more rotationally accurate than Sobel at the same cost.<br>
+	 * @param bi A reference to a BufferedImage object.
+	 * @param gx plane that receives the X derivative, or null.
+	 * @param gy plane that receives the Y derivative, or null.
+	 * @param magnitude plane that receives the gradient magnitude, or null.
+	 * @param direction plane that receives one of the DIRECTION_XXX values, or null.
+	 * @param l2 true for the magnitude sqrt(Gx*Gx + Gy*Gy), false for |Gx| + |Gy|.
+	 * @throws IllegalArgumentException thrown if bi is null or an output plane is too small.
+	 */
+	public void scharr(BufferedImage bi, int[] gx, int[] gy,
+					   int[] magnitude, byte[] direction, boolean l2) throws IllegalArgumentException
+	{
+		int[] gray = getGrayPlane(bi);
+		gradient(gray, bi.getWidth(), bi.getHeight(), 3, 10, gx, gy, magnitude, direction, l2);
+	}
+
+	/**
+	 * Computes the Scharr gradient of a gray plane, such as one returned by getGrayPlane.<br>
+	 * The Scharr kernels are given in the class description.<br>
+	 * @param gray row major gray plane of at least width * height elements.
+	 * @param width the width of the image in pixels.
+	 * @param height the height of the image in pixels.
+	 * @param gx plane that receives the X derivative, or null.
+	 * @param gy plane that receives the Y derivative, or null.
+	 * @param magnitude plane that receives the gradient magnitude, or null.
+	 * @param direction plane that receives one of the DIRECTION_XXX values, or null.
+	 * @param l2 true for the magnitude sqrt(Gx*Gx + Gy*Gy), false for |Gx| + |Gy|.
+	 * @throws IllegalArgumentException thrown if gray is null, the dimensions are not
+	 * 		   positive or too large, or any plane is too small.
+	 */
+	public void scharr(int[] gray, int width, int height, int[] gx, int[] gy,
+					   int[] magnitude, byte[] direction, boolean l2) throws IllegalArgumentException
+	{
+		gradient(gray, width, height, 3, 10, gx, gy, magnitude, direction, l2);
+	}
+
+	/**
+	 * Computes the gradient of the gray plane in a single pass, using a 3x3 X kernel of
+	 * {{-a,0,a},{-b,0,b},{-a,0,a}}, written with rows along y, and its transpose as
+	 * the Y kernel.<br>
+	 * As in Convolve2D, a neighbor that falls outside of the image takes the
+	 * value of the pixel at [x,y].
+	 * @param a the weight of the corner elements.
+	 * @param b the weight of the middle elements.
+	 */
+	private void gradient(int[] gray, int width, int height, int a, int b,
+						  int[] gx, int[] gy, int[] magnitude, byte[] direction, boolean l2)
+						  throws IllegalArgumentException
+	{
+		if( gray == null )
+			throw new IllegalArgumentException("gray plane reference is null");
+
+		if( width <= 0 || height <= 0 )
+			throw new IllegalArgumentException("width and height must be positive");
+
+		// a plane cannot hold more than Integer.MAX_VALUE elements, and the
+		// product would overflow to a length that passes the checks below
+		long pixels = (long) width * height;
+		if( pixels > Integer.MAX_VALUE )
+			throw new IllegalArgumentException("width * height is too large for a plane");
+
+		int n = (int) pixels;
+		verifyPlaneLength(gray.length, n, "gray");
+		verifyPlaneLength(gx == null ? n : gx.length, n, "gx");
+		verifyPlaneLength(gy == null ? n : gy.length, n, "gy");
+		verifyPlaneLength(magnitude == null ? n : magnitude.length, n, "magnitude");
+		verifyPlaneLength(direction == null ? n : direction.length, n, "direction");
+
+		for( int y = 0; y < height; y++ )
+		{
+			int row = y * width;
+
+			// the rows above and below, or the current row when
+			// they fall outside of the image
+			boolean hasUp 	= y > 0;
+			boolean hasDown = y < height - 1;
+			int rowUp 		= hasUp ? row - width : row;
+			int rowDown 	= hasDown ? row + width : row;
+
+			for( int x = 0; x < width; x++ )
+			{
+				int center = gray[row + x];
+
+				int dx;
+				int dy;
+
+				if( hasUp && hasDown && x > 0 && x < width - 1 )
+				{
+					// the whole neighborhood lies inside the image
+					int nw = gray[rowUp + x - 1];
+					int n0 = gray[rowUp + x];
+					int ne = gray[rowUp + x + 1];
+					int w0 = gray[row + x - 1];
+					int e0 = gray[row + x + 1];
+					int sw = gray[rowDown + x - 1];
+					int s0 = gray[rowDown + x];
+					int se = gray[rowDown + x + 1];
+
+					dx = a * (ne - nw) + b * (e0 - w0) + a * (se - sw);
+					dy = a * (sw - nw) + b * (s0 - n0) + a * (se - ne);
+				} else {
+					// on the border, just use the value of the pixel at x, y
+					// for any neighbor that is outside of the image
+					boolean hasLeft 	= x > 0;
+					boolean hasRight 	= x < width - 1;
+
+					int nw = hasUp && hasLeft 		? gray[rowUp + x - 1] 	: center;
+					int n0 = hasUp 					? gray[rowUp + x] 		: center;
+					int ne = hasUp && hasRight 		? gray[rowUp + x + 1] 	: center;
+					int w0 = hasLeft 				? gray[row + x - 1] 	: center;
+					int e0 = hasRight 				? gray[row + x + 1] 	: center;
+					int sw = hasDown && hasLeft 	? gray[rowDown + x - 1] : center;
+					int s0 = hasDown 				? gray[rowDown + x] 	: center;
+					int se = hasDown && hasRight 	? gray[rowDown + x + 1] : center;
+
+					dx = a * (ne - nw) + b * (e0 - w0) + a * (se - sw);
+					dy = a * (sw - nw) + b * (s0 - n0) + a * (se - ne);
+				}
+
+				if( gx != null )
+					gx[row + x] = dx;
+
+				if( gy != null )
+					gy[row + x] = dy;
+
+				int ax = dx < 0 ? -dx : dx;
+				int ay = dy < 0 ? -dy : dy;
+
+				if( magnitude != null )
+				{
+					if( l2 )
+						magnitude[row + x] = (int) Math.round(Math.sqrt((double) dx * dx + (double) dy * dy));
+					else
+						magnitude[row + x] = ax + ay;
+				}
+
+				if( direction != null )
+				{
+					// compare ay / ax against tan(22.5) = sqrt(2) - 1 and
+					// tan(67.5) = sqrt(2) + 1 without calling atan2 for every
+					// pixel, by moving the 1 to the left side and squaring,
+					// which is exact in integer arithmetic
+					long sx 	= ax;
+					long sumSq 	= (sx + ay) * (sx + ay);
+					long diffSq = (ay - sx) * (ay - sx);
+					long twoSq 	= 2 * sx * sx;
+
+					byte dir;
+					if( sumSq <= twoSq )
+						dir = DIRECTION_0;
+					else if( ay >= ax && diffSq >= twoSq )
+						dir = DIRECTION_90;
+					else if( (dx ^ dy) >= 0 )
+						dir = DIRECTION_45;
+					else
+						dir = DIRECTION_135;
+
+					direction[row + x] = dir;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Verifies that a plane has room for every pixel of the image.<br>
+	 * @param length the length of the plane.
+	 * @param n the number of pixels in the image.
+	 * @param name the name of the plane, used in the exception message.
+	 * @throws IllegalArgumentException thrown if the plane is too small.
+	 */
+	private void verifyPlaneLength(int length, int n, String name) throws IllegalArgumentException
+	{
+		if( length < n )
+			throw new IllegalArgumentException(name + " plane must have at least width * height elements");
+	}
+}